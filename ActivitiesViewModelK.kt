@@ -6,16 +6,24 @@ import com.project.main.models.json.params.SessionFilter
 import com.project.main.models.session.info.ActivitiesArchiveInfo
 import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
 import com.project.main.providers.ActivitiesFilterProvider
-import com.project.main.utils.DateUtils
+import com.project.main.utils.LongHashSet
 import com.project.main.web.RequestListener
 import com.project.main.web.RequestPerformer
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.*
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import timber.log.Timber
 import java.util.*
 import kotlin.coroutines.resume
-import kotlin.coroutines.suspendCoroutine
 
 open class ActivitiesViewModelK(@JvmField protected val pageSize: Int) : LoadingViewModel() {
 
@@ -25,17 +33,78 @@ open class ActivitiesViewModelK(@JvmField protected val pageSize: Int) : Loading
     @JvmField
     protected var currentPage = 0
 
+    // Number of archive periods requested simultaneously
+    @JvmField
+    protected var archiveFetchParallelism = 4
+
+    @JvmField
+    protected val ARCHIVE_REQUEST_TIMEOUT = 30_000L
+
+    // Delay before refetching archive periods that failed to load
+    @JvmField
+    protected val ARCHIVE_RECOVERY_DELAY = 10_000L
+
     var isThresholdReached = false
         protected set(value) {
             _filteredThresholdArchive.value = null
             field = value
+
+            // Recent archive isn't needed anymore. Its requests that aren't shared with yearly ones are cancelled too
+            if (value) fastArchivesJob?.cancel()
+        }
+
+    private var archiveLoadJob: Job? = null
+
+    // Identifies the current loading in ArchiveRepository
+    private var archiveLoadOwner: Any? = null
+    private var fastArchivesJob: Job? = null
+
+    // Start of the current loading, until the first filtered archive is published
+    private var archiveLoadStartTime = 0L
+
+    // Shared archive of the pupils set that is currently shown
+    private var repositoryEntry: ArchiveRepository.Entry? = null
+    private var repositoryPupilsIds: List<Long> = emptyList()
+
+    private val repositoryObserver = Observer<List<ArchiveItem>> { items ->
+        if (items != null) {
+            onRepositoryArchive(items)
+        } else if (repositoryEntry?.isLoading == false) {
+            // Archive loading was aborted by another screen
+            loadActivitiesArchive(repositoryPupilsIds)
         }
+    }
+
+    // Sessions to show. Empty means all sessions are shown
+    private val sessionsToShow = LongHashSet()
+
+    // Same sessions in the order they were set
+    private val orderedSessionsToShow = ArrayList<Long>()
 
-    var itemsToShowList = mutableListOf<Long>()
+    /**
+     * Setting the list appends sessions to already set ones. Returned list can't be modified
+     */
+    @Deprecated("Use replaceItemsToShow or clearItemsToShow to change sessions to show")
+    var itemsToShowList: List<Long>
+        get() = Collections.unmodifiableList(orderedSessionsToShow)
         set(value) {
-            field.addAll(value)
+            addItemsToShow(value)
         }
 
+    fun replaceItemsToShow(sessionIds: Collection<Long>) {
+        clearItemsToShow()
+        addItemsToShow(sessionIds)
+    }
+
+    fun clearItemsToShow() {
+        sessionsToShow.clear()
+        orderedSessionsToShow.clear()
+    }
+
+    private fun addItemsToShow(sessionIds: Iterable<Long>) {
+        sessionIds.forEach { if (sessionsToShow.add(it)) orderedSessionsToShow.add(it) }
+    }
+
     // Original archive info. Should not be modified
     @JvmField
     protected val allArchiveItems: MutableLiveData<List<ArchiveItem>> = MutableLiveData()
@@ -51,107 +120,346 @@ open class ActivitiesViewModelK(@JvmField protected val pageSize: Int) : Loading
     @JvmField
     protected val filterProvider: ActivitiesFilterProvider = ActivitiesFilterProvider(SessionFilter())
 
+    val archiveMetrics = ArchiveLoadMetrics()
+
+    // Index of all archive for filter queries. Built once all archive is loaded, if [indexArchive] declares facets
+    @Volatile
+    protected var archiveIndex: ArchiveIndex? = null
+        private set
+
     private val _filteredThresholdArchive = MutableLiveData<List<ArchiveItem>>()
-    private val filteredThresholdArchive: LiveData<List<ArchiveItem>> = Transformations.switchMap(thresholdArchiveItems) { threshold ->
-        val filteredData = filterProvider.getFilteredData(threshold)
-        if (filteredData.size >= MAX_THRESHOLD
-                && (_filteredThresholdArchive.value == null || filteredData.size / MAX_THRESHOLD == 2)) {
-            Timber.d("Threshold ready %d", filteredData.size)
-            _filteredThresholdArchive.value = filteredData
-        }
-        _filteredThresholdArchive
-    }
+    private val filteredThresholdArchive: LiveData<List<ArchiveItem>> = _filteredThresholdArchive
+
+    // Newest filtered threshold items. Accessed on main thread only
+    private val thresholdCollector = TopArchiveCollector(MAX_THRESHOLD * 2)
+
+    private val archivePager = ArchivePager(pageSize)
+
+    // Filtered archive served by pages, so UI binds only a window of it
+    private val _archivePage = MediatorLiveData<ArchivePage>()
+    val archivePage: LiveData<ArchivePage> = _archivePage
 
     init {
+        filterThresholdInBackground()
+
         mFilteredArchiveInfo.addSource(filteredThresholdArchive) { threshold ->
             if (threshold != null) {
-                isThresholdReached = true
-                currentPage = 0
+                // Later pushes only update the content, so the page being scrolled is kept
+                if (!isThresholdReached) {
+                    isThresholdReached = true
+                    currentPage = 0
+                }
                 mFilteredArchiveInfo.value = threshold
+
+                if (archiveLoadStartTime > 0) {
+                    archiveMetrics.timeToFirstThreshold.record(System.currentTimeMillis() - archiveLoadStartTime)
+                    archiveLoadStartTime = 0
+                }
             }
         }
+
+        _archivePage.addSource(mFilteredArchiveInfo) { items ->
+            archivePager.submit(items ?: emptyList())
+            currentPage = currentPage.coerceIn(0, (archivePager.pageCount - 1).coerceAtLeast(0))
+            _archivePage.value = archivePager.window(currentPage)
+        }
+    }
+
+    /**
+     * Should be called by UI once [page] is shown, so the window moves along with it
+     */
+    fun onPageShown(page: Int) {
+        if (page == currentPage || page < 0 || page >= archivePager.pageCount) return
+
+        currentPage = page
+        _archivePage.value = archivePager.window(page)
+    }
+
+    /**
+     * Filters threshold items off the main thread. Only items that weren't filtered before are processed,
+     * the matching ones are fed to [thresholdCollector]. Filtering of stale threshold is dropped once the newer one arrives,
+     * so its items are processed with the newer one
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private fun filterThresholdInBackground() {
+        thresholdArchiveItems.asFlow()
+                .mapLatest { threshold ->
+                    val newItems = threshold.filter { !thresholdCollector.isSeen(it.sessionId) }
+                    if (newItems.isEmpty()) return@mapLatest false
+
+                    val matchingItems = withContext(Dispatchers.Default) {
+                        val startTime = System.nanoTime()
+                        filterProvider.getFilteredData(newItems)
+                                .also { onThresholdFiltered(newItems.size, System.nanoTime() - startTime) }
+                    }
+
+                    thresholdCollector.markSeen(newItems)
+                    matchingItems.fold(false) { isChanged, item -> thresholdCollector.offer(item) || isChanged }
+                }
+                .onEach { isChanged ->
+                    // First screen is published once it's full, then every change is pushed
+                    if (isChanged && thresholdCollector.size >= MAX_THRESHOLD) {
+                        Timber.d("Threshold ready %d", thresholdCollector.size)
+                        _filteredThresholdArchive.value = thresholdCollector.snapshot()
+                    }
+                }
+                .launchIn(viewModelScope)
+    }
+
+    /**
+     * Filters threshold again, e.g. once the filter was changed
+     */
+    protected fun refilterThreshold() {
+        thresholdCollector.clear()
+        thresholdArchiveItems.value?.let { thresholdArchiveItems.value = it }
+    }
+
+    /**
+     * Called on background thread after every threshold filtering
+     *
+     * @param itemsCount number of items that were filtered
+     * @param duration   filtering duration in nanoseconds
+     */
+    protected open fun onThresholdFiltered(itemsCount: Int, duration: Long) {
+        archiveMetrics.filterTime.record(duration / 1000)
     }
 
     fun isAllArchiveReady() : Boolean = allArchiveItems.value != null && allArchiveItems.value!!.isNotEmpty()
 
-    @ExperimentalCoroutinesApi
-    protected fun loadActivitiesArchive(@Nullable coachPupilsIds: List<Long>) {
-        viewModelScope.launch {
-            val archiveInfoList = mutableListOf<ActivitiesArchiveInfo>()
-            val currentTime = System.currentTimeMillis() // Save current time to make sure it'd be within range
+    /**
+     * Attaches to the archive of [coachPupilsIds] in [ArchiveRepository]. Loads it only if it's missing or stale
+     * and no other screen is loading it already
+     *
+     * @param refresh Loads the archive even if it's fresh, e.g. once content update was requested
+     */
+    @JvmOverloads
+    protected fun loadActivitiesArchive(@Nullable coachPupilsIds: List<Long>, refresh: Boolean = false) {
+        // Previous loading is dropped with all its requests
+        archiveLoadJob?.cancel()
+        archiveLoadStartTime = System.currentTimeMillis()
+
+        val entry = attachToRepository(coachPupilsIds)
+        // Own cancelled loading is aborted asynchronously, so it isn't counted as loading by another screen
+        val isLoadingElsewhere = entry.isLoading && entry.loadingOwner !== archiveLoadOwner
+        if ((!refresh && entry.isFresh) || isLoadingElsewhere) {
+            Timber.d("Reusing shared archive")
+            return
+        }
+
+        val owner = Any()
+        archiveLoadOwner = owner
+        ArchiveRepository.startLoading(entry, owner)
+        archiveLoadJob = viewModelScope.launch {
+            val archiveList = mutableListOf<List<ArchiveItem>>()
+            val thresholdArchive = OrderedArchive()
+            thresholdCollector.clear()
+            // Save current time to make sure it'd be within range. Shared by both flows, so their ranges meet exactly
+            val currentTime = System.currentTimeMillis()
+
+            val loader = ResilientArchiveLoader({ start, end ->
+                val requestTime = System.currentTimeMillis()
+                loadArchiveForDates(end, start, coachPupilsIds)?.let { it.archiveItemList ?: emptyList() }?.also {
+                    archiveMetrics.requestLatency.record(System.currentTimeMillis() - requestTime)
+                    archiveMetrics.itemsCount.record(it.size.toLong())
+                }
+            })
+
+            // All flows below request overlapping dates, so each interval goes to server only once
+            val coordinator = ArchiveRequestCoordinator(this) { start, end -> loader.load(start, end) }
+
+            // Recent periods are requested first, so yearly requests would load only what's left
+            fastArchivesJob = loadFastArchives(this, coordinator, thresholdArchive, currentTime)
 
-            loadAllArchiveAsync(coachPupilsIds)
-                    .onCompletion {
-                        Timber.d("All archive fetched")
-                        allArchiveItems.value = transformArchiveItemsList(archiveInfoList)
+            loadAllArchiveAsync(coordinator, loader, currentTime, coachPupilsIds)
+                    .onCompletion { cause ->
+                        if (cause != null) {
+                            ArchiveRepository.abortLoading(entry, owner)
+                            return@onCompletion
+                        }
+
+                        Timber.d("All archive fetched. Requests shared: %d, sent: %d", coordinator.hits, coordinator.misses)
+                        val archive = OrderedArchive()
+                        ArchiveRepository.publish(entry, archive.merge(archiveList))
+                        archiveMetrics.dump()
+
+                        if (loader.hasFailures) {
+                            launch { recoverFailedPeriods(entry, loader, archive) }
+                        }
                     }
                     .onEach {
-                        archiveInfoList.add(it.info)
+                        // Stored unfiltered, as the archive is shared with other screens
+                        val items = transformArchiveItemsList(it.items, filterSessions = false)
+                        archiveList.add(items)
                         if (it.isWithinRange(currentTime)) {
                             Timber.d("Received archive within range")
-                            thresholdArchiveItems.value = transformArchiveItemsList(mutableListOf(it.info))
+                            thresholdArchiveItems.value = thresholdArchive.merge(listOf(filterSessions(items)))
                         }
                     }
                     .launchIn(this)
+        }
+    }
+
+    private fun attachToRepository(coachPupilsIds: List<Long>): ArchiveRepository.Entry {
+        repositoryPupilsIds = coachPupilsIds
+
+        val entry = ArchiveRepository.attach(coachPupilsIds)
+        repositoryEntry?.let { previous ->
+            previous.archiveItems.removeObserver(repositoryObserver)
+            ArchiveRepository.detach(previous)
+        }
+        repositoryEntry = entry
+
+        // Stored archive (even stale one) is delivered right away
+        entry.archiveItems.observeForever(repositoryObserver)
+        return entry
+    }
+
+    private fun onRepositoryArchive(items: List<ArchiveItem>) {
+        val filteredItems = filterSessions(items)
 
-            loadFastArchives(coachPupilsIds)
+        // Archive that was loaded elsewhere also fills the threshold of this screen
+        if (!isThresholdReached) {
+            thresholdArchiveItems.value = filteredItems
         }
+
+        viewModelScope.launch { publishAllArchive(filteredItems) }
+    }
+
+    override fun onCleared() {
+        repositoryEntry?.let { entry ->
+            entry.archiveItems.removeObserver(repositoryObserver)
+            ArchiveRepository.detach(entry)
+        }
+        repositoryEntry = null
+
+        super.onCleared()
     }
 
-    @ExperimentalCoroutinesApi
-    private fun loadAllArchiveAsync(@Nullable coachPupilsIds: List<Long>): Flow<ActivityArchiveRange> = flow {
-        // Getting dates in YEAR periods
-        getPeriodDates(System.currentTimeMillis(), SessionFilter.DEFAULT_STARTTIME)
-                .buffer() // Calculate dates independently
-                .collect { dates ->
-                    // Loading archives async to allow this flow to complete
+    @OptIn(FlowPreview::class)
+    private fun loadAllArchiveAsync(coordinator: ArchiveRequestCoordinator, loader: ResilientArchiveLoader, startTime: Long,
+                                    @Nullable coachPupilsIds: List<Long>): Flow<ActivityArchiveRange> {
+        // Getting dates in YEAR periods. Aligned to calendar years, so closed ones could be reused from cache
+        val bounds = PeriodRanges.yearBounds(startTime, SessionFilter.DEFAULT_STARTTIME)
+
+        return (0 until bounds.size - 1).asFlow()
+                .flatMapMerge(archiveFetchParallelism) { index ->
+                    val from = bounds[index]
+                    val to = bounds[index + 1]
+
+                    // Every period is emitted as soon as it's loaded, no matter of the order
                     flow {
-                        emit(loadArchiveForDates(dates.first, dates.second, coachPupilsIds))
-                    }.filterNotNull().collect { info ->
-                        emit(ActivityArchiveRange(dates, info))
+                        val isLoaded = withTimeoutOrNull(ARCHIVE_REQUEST_TIMEOUT) {
+                            loadArchiveForPeriod(coordinator, from, to, index > 0, coachPupilsIds)
+                                    .collect { items -> emit(ActivityArchiveRange(from, to, items)) }
+                        } != null
+
+                        if (!isLoaded) {
+                            Timber.w("Archive for %d - %d wasn't loaded in time", to, from)
+                            loader.markFailed(to, from)
+                        }
                     }
                 }
     }
 
-    @ExperimentalCoroutinesApi
-    private suspend fun loadFastArchives(@Nullable coachPupilsIds: List<Long>) {
-        val archiveForPeriod = fun(period: Int) = flow {
-            val archivesForPeriod = mutableListOf<ArchiveItem>()
-            var counter = 0
-
-            getPeriodDates(System.currentTimeMillis(), period = period, endTime = SessionFilter.DEFAULT_STARTTIME)
-                    .filter { !isThresholdReached }
-                    .map { dates -> loadArchiveForDates(dates.first, dates.second, coachPupilsIds) }
-                    .filterNotNull()
-                    .map { info -> transformArchiveItemsList(mutableListOf(info)) }
-                    .collect {
-                        archivesForPeriod.addAll(it)
-                        emit(archivesForPeriod)
-                    }
+    /**
+     * Refetches periods that failed to load and merges them into already published archive
+     */
+    private suspend fun recoverFailedPeriods(entry: ArchiveRepository.Entry, loader: ResilientArchiveLoader, archive: OrderedArchive) {
+        delay(ARCHIVE_RECOVERY_DELAY)
+
+        val recovered = loader.recover()
+        Timber.d("Recovered %d archive periods", recovered.size)
+
+        if (recovered.isNotEmpty()) {
+            ArchiveRepository.publish(entry, archive.merge(recovered.map { transformArchiveItemsList(it, filterSessions = false) }))
         }
+    }
+
+    private suspend fun publishAllArchive(items: List<ArchiveItem>) {
+        allArchiveItems.value = items
+
+        // Screens that don't declare facets don't query the index
+        val builder = ArchiveIndex.Builder().apply { indexArchive(this) }
+        val index = if (builder.hasFacets) withContext(Dispatchers.Default) { builder.build(items) } else null
 
-        val collector: (List<ArchiveItem>) -> Unit = {
-            if (!isThresholdReached) thresholdArchiveItems.value = it
+        // Newer archive could be published while building, its index shouldn't be replaced by this one
+        if (allArchiveItems.value === items) {
+            archiveIndex = index
         }
+    }
+
+    /**
+     * Loads recent archive until the threshold is reached.
+     * Windows are sized by [AdaptiveRangePlanner], so each request brings about a screen of sessions
+     */
+    private fun loadFastArchives(scope: CoroutineScope, coordinator: ArchiveRequestCoordinator, thresholdArchive: OrderedArchive,
+                                 loadTime: Long): Job {
+        val planner = AdaptiveRangePlanner(MAX_THRESHOLD)
 
-        fun Flow<List<ArchiveItem>>.prepareFlowChain() {
-            this
-                    .onEach { collector(it) }
-                    .launchIn(viewModelScope)
+        // Undispatched, so the first range is registered in coordinator right away
+        return scope.launch(start = CoroutineStart.UNDISPATCHED) {
+            var currentTime = loadTime
+
+            try {
+                while (currentTime > SessionFilter.DEFAULT_STARTTIME && !isThresholdReached) {
+                    val startTime = (currentTime - planner.nextWindow()).coerceAtLeast(SessionFilter.DEFAULT_STARTTIME)
+
+                    coordinator.load(startTime, currentTime)?.let { items ->
+                        planner.record(currentTime - startTime, items.size)
+
+                        // Threshold could be reached while loading
+                        if (!isThresholdReached) {
+                            thresholdArchiveItems.value = thresholdArchive.merge(listOf(transformArchiveItemsList(items)))
+                        }
+                    }
+                    currentTime = startTime
+                }
+            } finally {
+                planner.save()
+            }
         }
-        archiveForPeriod(Calendar.MONTH).prepareFlowChain()
-        archiveForPeriod(Calendar.WEEK_OF_MONTH).prepareFlowChain()
     }
 
+    /**
+     * Loads archive for closed period from [ArchiveDiskCache] when possible.
+     * Cached items are streamed by chunks while being read. Open period is always requested from server
+     */
+    private fun loadArchiveForPeriod(coordinator: ArchiveRequestCoordinator, from: Long, to: Long, isClosed: Boolean,
+                                     @Nullable coachPupilsIds: List<Long>): Flow<List<ArchiveItem>> = flow {
+        val key = ArchiveDiskCache.key(coachPupilsIds, from, to)
+        val cached = if (isClosed) ArchiveDiskCache.read(key, archiveMetrics) else null
+
+        if (cached != null) {
+            val cachedItems = mutableListOf<ArchiveItem>()
+            var isBroken = false
+
+            cached.catch { isBroken = true }
+                    .collect { chunk ->
+                        cachedItems.addAll(chunk)
+                        emit(chunk)
+                    }
+
+            if (!isBroken) {
+                coordinator.offer(to, from, cachedItems)
+                return@flow
+            }
+            // Falling back to server otherwise. Already emitted items are deduplicated while merging
+        }
+
+        coordinator.load(to, from)?.let { items ->
+            if (isClosed) ArchiveDiskCache.write(key, items)
+            emit(items)
+        }
+    }
 
     /**
      * Actual request to load #ArchiveItem from server
      */
     private suspend fun loadArchiveForDates(from: Long, to: Long, @Nullable coachPupilsIds: List<Long>): ActivitiesArchiveInfo? {
-        return suspendCoroutine { continuation ->
-            val format: (Long) -> String = { DateUtils.formatDate(DateUtils.DATE_TIME_FORMAT, it) }
-
-            RequestPerformer.getActivitiesArchive(format(to), format(from),
+        // Cancellable, so timeout or leaving the screen won't wait for the response.
+        // RequestPerformer can't abort the request, so the late response is just dropped without further processing
+        return suspendCancellableCoroutine { continuation ->
+            RequestPerformer.getActivitiesArchive(RequestDates.format(to), RequestDates.format(from),
                     coachPupilsIds, this, object : RequestListener<ActivitiesArchiveInfo?>() {
                 override fun onSuccess(response: ActivitiesArchiveInfo?) {
                     super.onSuccess(response)
@@ -170,35 +478,29 @@ open class ActivitiesViewModelK(@JvmField protected val pageSize: Int) : Loading
     }
 
     /**
-     * Transforms [ActivitiesArchiveInfo] to @[ActivitiesArchiveInfo.ArchiveItem]
+     * Declares facets of [archiveIndex] that filters of this screen query
      */
-    private fun transformArchiveItemsList(archiveList: List<ActivitiesArchiveInfo>): List<ArchiveItem> {
-        return archiveList
-                .flatMap { it.archiveItemList }
-                .filter { itemsToShowList.isEmpty() || itemsToShowList.contains(it.sessionId) }
-                .sortedWith(Comparator { o1, o2 -> o2.orderDate.compareTo(o1.orderDate) })
-    }
-
-    private fun getPeriodDates(startTime: Long, endTime: Long = 0, period: Int = Calendar.YEAR): Flow<Pair<Long, Long>> =
-            flow {
-                var currentTime = startTime
-                val calendar = Calendar.getInstance().apply { timeInMillis = currentTime }
-                val _endTime = if (endTime == 0L) calendar.apply { add(period, -1) }.timeInMillis else endTime
-
-                while (currentTime >= _endTime) {
-                    val lastTime = currentTime
-                    currentTime = calendar.apply {
-                        timeInMillis = currentTime
-                        add(period, -1)
-                    }.timeInMillis
-
-                    emit(Pair(lastTime, currentTime))
-                }
-            }
-}
+    protected open fun indexArchive(builder: ArchiveIndex.Builder) {}
 
-private class ActivityArchiveRange(private val from: Long, private val to: Long, val info: ActivitiesArchiveInfo) {
-    constructor(dates: Pair<Long, Long>, info: ActivitiesArchiveInfo) : this(dates.first, dates.second, info)
+    /**
+     * Filters and sorts @[ActivitiesArchiveInfo.ArchiveItem] of a single period received from server.
+     * Sorted periods are then merged by [OrderedArchive]
+     */
+    private fun transformArchiveItemsList(archiveItems: List<ArchiveItem>, filterSessions: Boolean = true): List<ArchiveItem> {
+        val startTime = System.nanoTime()
+
+        return (if (filterSessions) filterSessions(archiveItems) else archiveItems)
+                .sortedWith(ARCHIVE_ORDER)
+                .also { archiveMetrics.transformTime.record((System.nanoTime() - startTime) / 1000) }
+    }
+
+    private fun filterSessions(archiveItems: List<ArchiveItem>): List<ArchiveItem> = when {
+        sessionsToShow.isEmpty() -> archiveItems
+        archiveItems is SortedArchive -> archiveItems.filterSessions(sessionsToShow)
+        else -> archiveItems.filter { sessionsToShow.contains(it.sessionId) }
+    }
+}
 
+private class ActivityArchiveRange(private val from: Long, private val to: Long, val items: List<ArchiveItem>) {
     fun isWithinRange(date: Long) = (date in to..from)
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package com.project.main.viewmodel
+
+import android.content.SharedPreferences
+import androidx.core.content.edit
+import com.project.main.utils.SharedPreferencesManager
+import com.project.main.web.ProjectApi
+
+/**
+ * Plans archive request windows by the density of sessions observed in previous requests,
+ * so every request returns about [targetItems] items. Learned density is saved per user, so next loads start tuned
+ */
+class AdaptiveRangePlanner(private val targetItems: Int) {
+
+    private val preferences: SharedPreferences = SharedPreferencesManager.get(SharedPreferencesManager.PreferenceType.USER)
+
+    private val densityKey = KEY_DENSITY + ProjectApi.getPlaySightUserId()
+
+    // Sessions per day
+    private var density = preferences.getFloat(densityKey, DEFAULT_DENSITY)
+
+    /**
+     * @return length of the next window in millis
+     */
+    fun nextWindow(): Long {
+        val days = targetItems / density.coerceAtLeast(MIN_DENSITY)
+        return (days * DAY).toLong().coerceIn(MIN_WINDOW, MAX_WINDOW)
+    }
+
+    fun record(window: Long, itemsCount: Int) {
+        val observed = itemsCount * DAY / window.coerceAtLeast(1).toFloat()
+
+        // Not dropping faster than twice per window, so a single empty window doesn't make the next one huge
+        density = (density * (1 - SMOOTHING) + observed * SMOOTHING).coerceAtLeast(density / 2)
+    }
+
+    fun save() {
+        preferences.edit { putFloat(densityKey, density) }
+    }
+
+    private companion object {
+        const val KEY_DENSITY = "archiveDensity_"
+
+        const val DAY = 24 * 60 * 60 * 1000L
+        const val MIN_WINDOW = DAY
+        const val MAX_WINDOW = 365 * DAY
+
+        const val DEFAULT_DENSITY = 1f
+        const val MIN_DENSITY = 0.001f
+        const val SMOOTHING = 0.5f
+    }
+}
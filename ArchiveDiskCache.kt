@@ -0,0 +1,90 @@
+package com.project.main.viewmodel
+
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.project.main.App
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+import com.project.main.web.ProjectApi
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * Disk storage for archive periods that are already closed and won't receive new sessions.
+ * Entries are keyed by user, pupils set and period bounds
+ */
+object ArchiveDiskCache {
+    private const val DIR_NAME = "activities_archive"
+
+    // Closed periods may still be edited on server (e.g. deleted sessions), so refreshing them once in a while
+    private const val MAX_AGE = 7 * 24 * 60 * 60 * 1000L
+
+    private val gson = Gson()
+
+    private val itemsType = object : TypeToken<List<ArchiveItem>>() {}.type
+
+    private val directory: File by lazy { File(App.getContext().cacheDir, DIR_NAME) }
+
+    fun key(coachPupilsIds: List<Long>?, from: Long, to: Long): String {
+        val pupils = coachPupilsIds?.sorted()?.joinToString(",").orEmpty()
+        val pupilsHash = MessageDigest.getInstance("MD5").digest(pupils.toByteArray())
+                .joinToString("") { "%02x".format(it) }
+
+        return "${ProjectApi.getPlaySightUserId()}_${pupilsHash}_${to}_$from"
+    }
+
+    /**
+     * @return items of the entry streamed by chunks, or null if there's no valid entry.
+     * Broken entry is deleted and the error is rethrown to the collector
+     */
+    suspend fun read(key: String, metrics: ArchiveLoadMetrics? = null): Flow<List<ArchiveItem>>? = withContext(Dispatchers.IO) {
+        val file = File(directory, key)
+        if (!file.exists()) return@withContext null
+
+        if (System.currentTimeMillis() - file.lastModified() > MAX_AGE) {
+            file.delete()
+            return@withContext null
+        }
+
+        metrics?.payloadBytes?.record(file.length())
+
+        ArchiveItemStreamDecoder.decode({ file.bufferedReader() })
+                .catch { e ->
+                    Timber.e(e, "Failed to read cached archive %s", key)
+                    file.delete()
+                    throw e
+                }
+    }
+
+    suspend fun write(key: String, items: List<ArchiveItem>) {
+        withContext(Dispatchers.IO) {
+            try {
+                directory.mkdirs()
+                pruneExpired()
+
+                // Writing to temp file first to never leave partially written entry
+                val temp = File(directory, "$key.tmp")
+                temp.bufferedWriter().use { gson.toJson(items, itemsType, it) }
+                if (!temp.renameTo(File(directory, key))) {
+                    temp.delete()
+                }
+            } catch (e: Exception) {
+                Timber.e(e, "Failed to cache archive %s", key)
+            }
+        }
+    }
+
+    /**
+     * Expired entries are otherwise deleted only once read, so entries of other users or pupils sets would stay forever
+     */
+    private fun pruneExpired() {
+        val now = System.currentTimeMillis()
+        directory.listFiles()?.forEach { file ->
+            if (now - file.lastModified() > MAX_AGE) file.delete()
+        }
+    }
+}
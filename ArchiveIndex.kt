@@ -0,0 +1,94 @@
+package com.project.main.viewmodel
+
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+import java.util.*
+
+/**
+ * In-memory index of archive for multi-criteria queries.
+ * Items are kept sorted by date and every facet (pupil, session type, etc.) keeps bitmaps of item positions,
+ * so a query is a binary search for the dates plus bitmaps intersection instead of the whole archive scan
+ */
+class ArchiveIndex private constructor(
+        private val items: List<ArchiveItem>,
+        private val times: LongArray,
+        private val facets: Map<String, Map<Any, BitSet>>) {
+
+    val size: Int
+        get() = items.size
+
+    /**
+     * @param from     start of the dates range, inclusive
+     * @param to       end of the dates range, inclusive
+     * @param criteria allowed values for every facet. Item matches the facet if it has any of the values,
+     * facets without values are ignored
+     * @return matching items sorted by [ARCHIVE_ORDER]
+     */
+    fun query(from: Long = Long.MIN_VALUE, to: Long = Long.MAX_VALUE, criteria: Map<String, Collection<Any>> = emptyMap()): List<ArchiveItem> {
+        // Times are descending, as items are
+        val start = firstIndex { times[it] <= to }
+        val end = firstIndex { times[it] < from }
+        if (start >= end) return emptyList()
+
+        val matches = BitSet(items.size).apply { set(start, end) }
+        for ((facet, values) in criteria) {
+            if (values.isEmpty()) continue
+
+            val postings = facets[facet] ?: throw IllegalArgumentException("Facet $facet isn't indexed")
+            val facetMatches = BitSet(items.size)
+            values.forEach { value -> postings[value]?.let { facetMatches.or(it) } }
+
+            matches.and(facetMatches)
+            if (matches.isEmpty) return emptyList()
+        }
+
+        val result = ArrayList<ArchiveItem>(matches.cardinality())
+        var index = matches.nextSetBit(start)
+        while (index >= 0) {
+            result.add(items[index])
+            index = matches.nextSetBit(index + 1)
+        }
+
+        return result
+    }
+
+    private inline fun firstIndex(predicate: (Int) -> Boolean): Int {
+        var low = 0
+        var high = times.size
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            if (predicate(middle)) high = middle else low = middle + 1
+        }
+        return low
+    }
+
+    class Builder {
+        private val facetKeys = mutableMapOf<String, (ArchiveItem) -> Collection<Any>>()
+
+        val hasFacets: Boolean
+            get() = facetKeys.isNotEmpty()
+
+        /**
+         * Indexes items by the values returned by [keysOf]
+         */
+        fun facet(name: String, keysOf: (ArchiveItem) -> Collection<Any>): Builder = apply {
+            facetKeys[name] = keysOf
+        }
+
+        /**
+         * @param items archive sorted by [ARCHIVE_ORDER]
+         */
+        fun build(items: List<ArchiveItem>): ArchiveIndex {
+            val times = LongArray(items.size) { items[it].orderTime }
+
+            val facets = facetKeys.mapValues { (_, keysOf) ->
+                val postings = HashMap<Any, BitSet>()
+                items.forEachIndexed { index, item ->
+                    keysOf(item).forEach { key -> postings.getOrPut(key) { BitSet(items.size) }.set(index) }
+                }
+                postings
+            }
+
+            return ArchiveIndex(items, times, facets)
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.project.main.viewmodel
+
+import com.google.gson.Gson
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import java.io.Reader
+
+/**
+ * Decodes archive items one by one while JSON is being read, so items are processed before
+ * the whole response is read and the response is never held in memory at once
+ */
+object ArchiveItemStreamDecoder {
+    private const val ITEMS_FIELD = "archiveItemList"
+
+    private val gson = Gson()
+
+    /**
+     * Reads either an array of items, or [ActivitiesArchiveInfo][com.project.main.models.session.info.ActivitiesArchiveInfo]
+     * object with the array of items in [itemsField]. Reader is opened by [openReader] once the flow is collected,
+     * and is closed once decoding is completed or cancelled
+     *
+     * @return chunks of up to [chunkSize] items in the order of the response
+     */
+    fun decode(openReader: () -> Reader, chunkSize: Int = 100, itemsField: String = ITEMS_FIELD): Flow<List<ArchiveItem>> = flow {
+        JsonReader(openReader()).use { json ->
+            if (json.peek() == JsonToken.BEGIN_OBJECT) {
+                json.beginObject()
+                while (json.hasNext() && json.nextName() != itemsField) {
+                    json.skipValue()
+                }
+
+                // No items in response
+                if (json.peek() == JsonToken.END_OBJECT) return@use
+            }
+
+            // Null for empty list
+            if (json.peek() == JsonToken.NULL) return@use
+
+            json.beginArray()
+            var chunk = ArrayList<ArchiveItem>(chunkSize)
+            while (json.hasNext()) {
+                chunk.add(gson.fromJson(json, ArchiveItem::class.java))
+
+                if (chunk.size == chunkSize) {
+                    emit(chunk)
+                    chunk = ArrayList(chunkSize)
+                }
+            }
+            json.endArray()
+
+            if (chunk.isNotEmpty()) emit(chunk)
+        }
+    }.flowOn(Dispatchers.IO)
+}
@@ -0,0 +1,11 @@
+package com.project.main.viewmodel
+
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+
+/**
+ * Newest items go first
+ */
+internal val ARCHIVE_ORDER = Comparator<ArchiveItem> { o1, o2 -> o2.orderDate.compareTo(o1.orderDate) }
+
+internal val ArchiveItem.orderTime: Long
+    get() = orderDate.time
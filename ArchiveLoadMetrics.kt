@@ -0,0 +1,94 @@
+package com.project.main.viewmodel
+
+import com.project.main.BuildConfig
+import timber.log.Timber
+
+/**
+ * Measurements of archive loading. Every value is recorded to its histogram, so the data could be checked
+ * in tests via [snapshot] or logged in debug builds via [dump]
+ */
+class ArchiveLoadMetrics {
+    // Server request duration per period, ms
+    val requestLatency = Histogram()
+
+    // Size of payload per period, bytes. Only known for cached periods
+    val payloadBytes = Histogram()
+
+    // Number of items per period
+    val itemsCount = Histogram()
+
+    // Period transformation duration, us
+    val transformTime = Histogram()
+
+    // Threshold filtering duration, us
+    val filterTime = Histogram()
+
+    // Time from loading start until the first filtered archive is published, ms
+    val timeToFirstThreshold = Histogram()
+
+    fun snapshot(): Map<String, HistogramSnapshot> = mapOf(
+            "requestLatency" to requestLatency.snapshot(),
+            "payloadBytes" to payloadBytes.snapshot(),
+            "itemsCount" to itemsCount.snapshot(),
+            "transformTime" to transformTime.snapshot(),
+            "filterTime" to filterTime.snapshot(),
+            "timeToFirstThreshold" to timeToFirstThreshold.snapshot())
+
+    fun dump() {
+        if (!BuildConfig.DEBUG) return
+
+        snapshot().forEach { (name, histogram) -> Timber.d("Archive %s: %s", name, histogram) }
+    }
+}
+
+/**
+ * Histogram of non-negative values with exponential buckets: bucket i holds values in [2^(i-1), 2^i), bucket 0 holds 0
+ */
+class Histogram {
+    private val buckets = LongArray(BUCKETS)
+    private var count = 0L
+    private var sum = 0L
+    private var min = Long.MAX_VALUE
+    private var max = Long.MIN_VALUE
+
+    @Synchronized
+    fun record(value: Long) {
+        val safeValue = value.coerceAtLeast(0)
+        buckets[BUCKETS - java.lang.Long.numberOfLeadingZeros(safeValue)]++
+        count++
+        sum += safeValue
+        if (safeValue < min) min = safeValue
+        if (safeValue > max) max = safeValue
+    }
+
+    @Synchronized
+    fun snapshot() = HistogramSnapshot(count, sum, if (count == 0L) 0 else min, if (count == 0L) 0 else max, buckets.copyOf())
+
+    private companion object {
+        const val BUCKETS = 64
+    }
+}
+
+class HistogramSnapshot(val count: Long, val sum: Long, val min: Long, val max: Long, private val buckets: LongArray) {
+
+    val mean: Double
+        get() = if (count == 0L) 0.0 else sum.toDouble() / count
+
+    /**
+     * @return upper bound of the bucket which holds [percentile] of values, but not more than [max]
+     */
+    fun percentile(percentile: Double): Long {
+        if (count == 0L) return 0
+
+        val rank = Math.ceil(count * percentile / 100).toLong().coerceAtLeast(1)
+        var seen = 0L
+        buckets.forEachIndexed { index, bucketCount ->
+            seen += bucketCount
+            if (seen >= rank) return if (index == 0) 0 else ((1L shl index) - 1).coerceAtMost(max)
+        }
+
+        return max
+    }
+
+    override fun toString() = "count=$count, mean=${"%.1f".format(mean)}, min=$min, p50=${percentile(50.0)}, p90=${percentile(90.0)}, max=$max"
+}
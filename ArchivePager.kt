@@ -0,0 +1,46 @@
+package com.project.main.viewmodel
+
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+
+/**
+ * Splits archive that is already in memory by pages of [pageSize], so UI binds only a window of [maxPages]
+ * ending with the page after the requested one. Nothing is loaded on demand, the window is a view over the archive
+ */
+class ArchivePager(pageSize: Int, private val maxPages: Int = 3) {
+
+    private val pageSize = pageSize.coerceAtLeast(1)
+
+    private var source: List<ArchiveItem> = emptyList()
+
+    val pageCount: Int
+        get() = (source.size + pageSize - 1) / pageSize
+
+    fun submit(items: List<ArchiveItem>) {
+        source = items
+    }
+
+    fun window(page: Int): ArchivePage {
+        if (source.isEmpty()) return ArchivePage(0, 0, emptyList(), 0)
+
+        val lastPage = (page + 1).coerceAtMost(pageCount - 1)
+        val firstPage = (lastPage - maxPages + 1).coerceAtLeast(0)
+
+        val from = firstPage * pageSize
+        val to = ((lastPage + 1) * pageSize).coerceAtMost(source.size)
+
+        // Submitted archive is never modified, so the view stays valid
+        return ArchivePage(page, from, source.subList(from, to), source.size)
+    }
+}
+
+/**
+ * @param page     requested page
+ * @param offset   position of the first [items] element in the whole archive
+ * @param items    items of the window pages
+ * @param total    size of the whole archive
+ */
+class ArchivePage(val page: Int, val offset: Int, val items: List<ArchiveItem>, val total: Int) {
+
+    val hasMore: Boolean
+        get() = offset + items.size < total
+}
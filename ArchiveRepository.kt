@@ -0,0 +1,108 @@
+package com.project.main.viewmodel
+
+import androidx.annotation.MainThread
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+import com.project.main.web.ProjectApi
+
+/**
+ * Process wide storage of loaded archives, so view models of different screens reuse the same archive
+ * instead of loading it on their own. Archives are stored unfiltered per user and pupils set.
+ *
+ * Archives of attached view models are always kept. Detached ones are kept up to [MAX_ITEMS] items in total,
+ * least recently used are dropped first
+ */
+@MainThread
+object ArchiveRepository {
+    private const val MAX_ITEMS = 50_000
+
+    // Archive older than that is still served, but is loaded again
+    private const val STALE_AFTER = 5 * 60 * 1000L
+
+    private val entries = LinkedHashMap<Key, Entry>(16, 0.75f, true)
+
+    fun attach(coachPupilsIds: List<Long>?): Entry {
+        val key = Key(ProjectApi.getPlaySightUserId().toString(), coachPupilsIds?.sorted() ?: emptyList())
+
+        return entries.getOrPut(key) { Entry() }.apply { subscribers++ }
+    }
+
+    fun detach(entry: Entry) {
+        entry.subscribers--
+        trim()
+    }
+
+    /**
+     * Marks entry as being loaded by one of subscribers
+     *
+     * @param owner Identifies the loading, so the stopped one can't abort the loading that replaced it
+     */
+    fun startLoading(entry: Entry, owner: Any) {
+        entry.loadingOwner = owner
+    }
+
+    /**
+     * Loading of [owner] was stopped before the archive was published. Subscribers receive null if there's no archive
+     * at all, so one of them could load it instead
+     */
+    fun abortLoading(entry: Entry, owner: Any) {
+        if (entry.loadingOwner !== owner) return
+
+        entry.loadingOwner = null
+        if (entry.items == null) entry.archive.value = null
+    }
+
+    fun publish(entry: Entry, items: List<ArchiveItem>) {
+        entry.loadingOwner = null
+        entry.items = items
+        entry.loadedAt = System.currentTimeMillis()
+        entry.archive.value = items
+        trim()
+    }
+
+    /**
+     * Drops all archives, e.g. once the user is signed out
+     */
+    fun clear() {
+        entries.clear()
+    }
+
+    private fun trim() {
+        var totalItems = entries.values.sumBy { it.items?.size ?: 0 }
+        if (totalItems <= MAX_ITEMS) return
+
+        // Iterating from the least recently used
+        val iterator = entries.values.iterator()
+        while (iterator.hasNext() && totalItems > MAX_ITEMS) {
+            val entry = iterator.next()
+            if (entry.subscribers > 0 || entry.isLoading) continue
+
+            totalItems -= entry.items?.size ?: 0
+            iterator.remove()
+        }
+    }
+
+    private data class Key(val userId: String, val pupilsIds: List<Long>)
+
+    class Entry internal constructor() {
+        internal var items: List<ArchiveItem>? = null
+        internal var loadedAt = 0L
+        internal var subscribers = 0
+
+        internal var loadingOwner: Any? = null
+
+        val isLoading: Boolean
+            get() = loadingOwner != null
+
+        internal val archive = MutableLiveData<List<ArchiveItem>>()
+
+        /**
+         * Unfiltered archive sorted by [ARCHIVE_ORDER]
+         */
+        val archiveItems: LiveData<List<ArchiveItem>> = archive
+
+        val isFresh: Boolean
+            get() = items != null && System.currentTimeMillis() - loadedAt < STALE_AFTER
+    }
+}
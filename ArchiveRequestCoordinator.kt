@@ -0,0 +1,129 @@
+package com.project.main.viewmodel
+
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Makes sure every date interval is requested from server only once while archive is loading.
+ * Requested range is split to the parts that are already loading (or loaded), which are shared,
+ * and the gaps between them, which are actually requested.
+ *
+ * All ranges are [start, end) in millis
+ */
+class ArchiveRequestCoordinator(
+        private val scope: CoroutineScope,
+        private val fetch: suspend (start: Long, end: Long) -> List<ArchiveItem>?) {
+
+    private val mutex = Mutex()
+
+    // Sorted by start and never overlapping
+    private val intervals = mutableListOf<Interval>()
+
+    private val hitsCounter = AtomicInteger()
+    private val missesCounter = AtomicInteger()
+
+    /**
+     * Number of range parts that were shared with previous requests
+     */
+    val hits: Int
+        get() = hitsCounter.get()
+
+    /**
+     * Number of range parts that were actually requested from server
+     */
+    val misses: Int
+        get() = missesCounter.get()
+
+    suspend fun load(start: Long, end: Long): List<ArchiveItem>? {
+        val parts = mutex.withLock { acquire(start, end) }
+
+        try {
+            val result = mutableListOf<ArchiveItem>()
+            val sessionIds = HashSet<Long>()
+            for (part in parts) {
+                val items = part.items.await()
+                if (items == null) {
+                    // Letting next requests to retry this range
+                    mutex.withLock { intervals.remove(part) }
+                    return null
+                }
+
+                val isInside = part.start >= start && part.end <= end
+                items.filterTo(result) { (isInside || it.orderTime in start until end) && sessionIds.add(it.sessionId) }
+            }
+
+            return result
+        } finally {
+            withContext(NonCancellable) { mutex.withLock { release(parts) } }
+        }
+    }
+
+    /**
+     * Registers range that was loaded elsewhere (e.g. from cache), so it'd be shared with next requests
+     */
+    suspend fun offer(start: Long, end: Long, items: List<ArchiveItem>) {
+        mutex.withLock {
+            if (intervals.none { it.start < end && start < it.end }) {
+                insert(Interval(start, end, CompletableDeferred(items)))
+            }
+        }
+    }
+
+    private fun acquire(start: Long, end: Long): List<Interval> {
+        val parts = mutableListOf<Interval>()
+        var cursor = start
+
+        for (interval in intervals.toList()) {
+            if (interval.end <= cursor) continue
+            if (interval.start >= end) break
+
+            if (interval.start > cursor) {
+                parts.add(request(cursor, interval.start))
+            }
+            parts.add(interval)
+            interval.waiters++
+            hitsCounter.incrementAndGet()
+            cursor = interval.end
+        }
+
+        if (cursor < end) {
+            parts.add(request(cursor, end))
+        }
+
+        return parts
+    }
+
+    private fun request(start: Long, end: Long): Interval {
+        missesCounter.incrementAndGet()
+
+        return Interval(start, end, scope.async { fetch(start, end) }).also {
+            it.waiters++
+            insert(it)
+        }
+    }
+
+    /**
+     * Cancels requests that nobody waits for anymore
+     */
+    private fun release(parts: List<Interval>) {
+        for (part in parts) {
+            if (--part.waiters == 0 && !part.items.isCompleted) {
+                part.items.cancel()
+                intervals.remove(part)
+            }
+        }
+    }
+
+    private fun insert(interval: Interval) {
+        val index = intervals.indexOfFirst { it.start > interval.start }
+        if (index < 0) intervals.add(interval) else intervals.add(index, interval)
+    }
+
+    private class Interval(val start: Long, val end: Long, val items: Deferred<List<ArchiveItem>?>) {
+        // Guarded by mutex
+        var waiters = 0
+    }
+}
@@ -3,65 +3,172 @@ package com.project.main.utils.notification
 import android.annotation.SuppressLint
 import android.app.Activity
 import android.content.Context
-import android.content.Intent
 import android.content.SharedPreferences
 import androidx.core.content.edit
+import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import com.google.firebase.iid.FirebaseInstanceId
 import com.google.firebase.messaging.FirebaseMessagingService
 import com.google.firebase.messaging.RemoteMessage
-import com.google.gson.Gson
 import com.microsoft.windowsazure.messaging.NotificationHub
 import com.project.main.activities.MainActivity
 import com.project.main.activities.overview.OverviewActivity
 import com.project.main.consts.BundleConstants
 import com.project.main.consts.StorageConstants
 import com.project.main.models.json.response.NotificationHubResponse
-import com.project.main.utils.DeeplinkingUtils
 import com.project.main.utils.SharedPreferencesManager
+import com.project.main.viewmodel.ArchiveRepository
 import com.project.main.web.ProjectApi
 import com.project.main.web.RequestListener
 import com.project.main.web.RequestPerformer
-import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import timber.log.Timber
 import java.util.*
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
-import kotlin.coroutines.suspendCoroutine
 
 object NotificationHubDefault {
+    private const val STAGE_TIMEOUT = 20_000L
+
+    @Deprecated("Holds only the latest notification. Use NotificationEvents, missed ones can be read from NotificationInbox")
     val lastNotification= MutableLiveData<RemoteNotification>()
 
     private var hub: NotificationHub? = null
 
-    private val scope = CoroutineScope(Dispatchers.Default)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    // Serializes registration against unregistration
+    private val mutex = Mutex()
+
+    // Registration in progress. Concurrent register calls join it, unless unregister was called after it
+    private var registration: Job? = null
+
+    // FCM token of the current registration
+    @Volatile
+    private var registeredToken: String? = null
+
+    @Volatile
+    private var currentState: HubState = HubState.Unregistered
+        set(value) {
+            field = value
+            _state.postValue(value)
+        }
+
+    private val _state = MutableLiveData<HubState>(HubState.Unregistered)
+    val state: LiveData<HubState> = _state
 
-    var isRegistered = false
-        private set
+    val isRegistered: Boolean
+        get() = currentState is HubState.Registered
 
     fun register(activity: Activity) {
-        scope.launch {
-            retrieveConnectionData().also {
-                Timber.d("Connecting notifications to ${it.first} - ${it.second}")
-                connectToHub(activity, it.first, it.second).also { id -> isRegistered = !id.isNullOrEmpty() }
+        val context = activity.applicationContext
+
+        synchronized(this) {
+            if (registration?.isActive == true) return
+
+            // Undispatched, so the mutex is queued for in the order of register and unregister calls
+            registration = scope.launch(start = CoroutineStart.UNDISPATCHED) {
+                mutex.withLock {
+                    if (isRegisteredWithCurrentToken()) {
+                        Timber.d("Previously Registered Successfully")
+                        return@withLock
+                    }
+
+                    currentState = HubState.Registering
+                    currentState = when (val result = performRegistration(context)) {
+                        is RegistrationResult.Registered -> HubState.Registered(result.registrationId)
+                        is RegistrationResult.Failed -> {
+                            Timber.e(result.cause, "Notifications registration failed on %s", result.stage)
+                            HubState.Failed(result.stage, result.cause)
+                        }
+                    }
+                }
             }
         }
     }
 
+    /**
+     * Only FCM token is checked if already registered, hub connection and preferences aren't touched
+     */
+    private suspend fun isRegisteredWithCurrentToken(): Boolean {
+        val token = registeredToken
+        if (currentState !is HubState.Registered || token == null) return false
+
+        return try {
+            stage(RegistrationStage.FCM_TOKEN) { retrieveFCMToken() } == token
+        } catch (e: RegistrationException) {
+            false
+        }
+    }
+
+    private suspend fun performRegistration(context: Context): RegistrationResult = try {
+        coroutineScope {
+            // Independent, so retrieved at the same time. Failure of any of them cancels the other one
+            val connectionData = async { stage(RegistrationStage.CONNECTION_DATA) { retrieveConnectionData() } }
+            val fcmToken = async { stage(RegistrationStage.FCM_TOKEN) { retrieveFCMToken() } }
+
+            val (hubName, hubConnection) = connectionData.await()
+            Timber.d("Connecting notifications to $hubName - $hubConnection")
+
+            val token = fcmToken.await()
+            // Hub registration is blocking and can't be interrupted by timeout. Late success would be reported as failure
+            stage(RegistrationStage.HUB, timeout = null) { connectToHub(context, hubName, hubConnection, token) }
+                    ?.let {
+                        registeredToken = token
+                        RegistrationResult.Registered(it)
+                    }
+                    ?: RegistrationResult.Failed(RegistrationStage.HUB, null)
+        }
+    } catch (e: RegistrationException) {
+        RegistrationResult.Failed(e.stage, e.cause)
+    }
+
+    /**
+     * Runs registration [stage] with [timeout] if set, wrapping its failure to [RegistrationException]
+     */
+    private suspend fun <T> stage(stage: RegistrationStage, timeout: Long? = STAGE_TIMEOUT, block: suspend () -> T): T {
+        try {
+            return if (timeout != null) withTimeout(timeout) { block() } else block()
+        } catch (e: TimeoutCancellationException) {
+            throw RegistrationException(stage, e)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            throw RegistrationException(stage, e)
+        }
+    }
+
     fun unregister() {
-        scope.launch {
-            withContext(Dispatchers.IO) {
-                try {
-                    hub?.unregister().also { isRegistered = false }
-                    SharedPreferencesManager.with(SharedPreferencesManager.PreferenceType.USER).remove(StorageConstants.SHARED_HUBNAME)
-                    SharedPreferencesManager.with(SharedPreferencesManager.PreferenceType.USER).remove(StorageConstants.SHARED_HUBSIGNATURE)
-
-                    Timber.d("UnRegistered Successfully")
-                } catch (e: Exception) {
-                    Timber.e(e)
+        synchronized(this) {
+            // Next register call should register again after this one, not join the previous registration
+            registration = null
+
+            scope.launch(start = CoroutineStart.UNDISPATCHED) {
+                mutex.withLock {
+                    currentState = HubState.Unregistering
+
+                    withContext(Dispatchers.IO) {
+                        // Notifications of this user shouldn't be replayed to the next one, even if hub wasn't reached
+                        NotificationInbox.clear()
+
+                        try {
+                            hub?.unregister()
+                            SharedPreferencesManager.with(SharedPreferencesManager.PreferenceType.USER).remove(StorageConstants.SHARED_HUBNAME)
+                            SharedPreferencesManager.with(SharedPreferencesManager.PreferenceType.USER).remove(StorageConstants.SHARED_HUBSIGNATURE)
+
+                            Timber.d("UnRegistered Successfully")
+                        } catch (e: Exception) {
+                            Timber.e(e)
+                        }
+                    }
+
+                    // Archives of this user shouldn't be served to the next one
+                    withContext(Dispatchers.Main) { ArchiveRepository.clear() }
+
+                    registeredToken = null
+                    currentState = HubState.Unregistered
                 }
             }
         }
@@ -73,7 +180,7 @@ object NotificationHubDefault {
         val hubName = sharedPreferences.getString(StorageConstants.SHARED_HUBNAME, null)
         val hubConnectionString = sharedPreferences.getString(StorageConstants.SHARED_HUBSIGNATURE, null)
 
-        return suspendCoroutine { continuation ->
+        return suspendCancellableCoroutine { continuation ->
             if (hubName.isNullOrEmpty() || hubConnectionString.isNullOrEmpty()) {
                 Timber.d("Fetching default notification connection data")
                 RequestPerformer.getDefaultNotificationHub(object : RequestListener<NotificationHubResponse>() {
@@ -95,20 +202,24 @@ object NotificationHubDefault {
     }
 
     private suspend fun retrieveFCMToken(): String {
-        return suspendCoroutine { continuation ->
-            FirebaseInstanceId.getInstance().instanceId.addOnSuccessListener { instanceIdResult ->
-                instanceIdResult.token.run {
-                    Timber.d("FCM Registration Token: $this")
-                    continuation.resume(this)
-                }
-            }
+        return suspendCancellableCoroutine { continuation ->
+            FirebaseInstanceId.getInstance().instanceId
+                    .addOnSuccessListener { instanceIdResult ->
+                        instanceIdResult.token.run {
+                            Timber.d("FCM Registration Token: $this")
+                            continuation.resume(this)
+                        }
+                    }
+                    .addOnFailureListener { e -> continuation.resumeWithException(e) }
         }
     }
 
-    private suspend fun connectToHub(ctx: Context, hubName: String, hubConnection: String): String? {
+    /**
+     * Failure is thrown, so it's reported with the [RegistrationStage.HUB] stage
+     */
+    private suspend fun connectToHub(ctx: Context, hubName: String, hubConnection: String, fcmToken: String): String? {
         val sharedPreferences: SharedPreferences = SharedPreferencesManager.get(SharedPreferencesManager.PreferenceType.USER)
 
-        var resultString: String
         var regID: String? = null
 
         val tag = PlaySightApi.getPlaySightUserId().toString()
@@ -116,81 +227,85 @@ object NotificationHubDefault {
         val KEY_REG_ID = "registrationID"
         val KEY_FCM_TOKEN = "FCMtoken"
 
-        val fcmToken = retrieveFCMToken()
-        try {
-            suspend fun updateConnection(token: String): String =
-                    withContext(Dispatchers.IO) {
-                        hub = NotificationHub(hubName, hubConnection, ctx).also { regID = it.register(token, tag).registrationId }
-                        sharedPreferences.edit {
-                            putString(KEY_REG_ID, regID)
-                            putString(KEY_FCM_TOKEN, token)
-                        }
-                        "New NH Registration Successfully - RegId : $regID"
+        suspend fun updateConnection(token: String): String =
+                withContext(Dispatchers.IO) {
+                    hub = NotificationHub(hubName, hubConnection, ctx).also { regID = it.register(token, tag).registrationId }
+                    sharedPreferences.edit {
+                        putString(KEY_REG_ID, regID)
+                        putString(KEY_FCM_TOKEN, token)
                     }
+                    "New NH Registration Successfully - RegId : $regID"
+                }
 
-            // Storing the registration ID that indicates whether the generated token has been
-            // sent to your server. If it is not stored, send the token to your server.
-            // Otherwise, your server should have already received the token.
-            if (sharedPreferences.getString(KEY_REG_ID, null).also { regID = it }.isNullOrEmpty()
-                            .also { isMissing ->
-                                if (isMissing) {
-                                    Timber.d("Attempting a new registration with NH using FCM token : $fcmToken")
-                                }
+        // Storing the registration ID that indicates whether the generated token has been
+        // sent to your server. If it is not stored, send the token to your server.
+        // Otherwise, your server should have already received the token.
+        val resultString = if (sharedPreferences.getString(KEY_REG_ID, null).also { regID = it }.isNullOrEmpty()
+                        .also { isMissing ->
+                            if (isMissing) {
+                                Timber.d("Attempting a new registration with NH using FCM token : $fcmToken")
                             }
-                    || (sharedPreferences.getString(KEY_FCM_TOKEN, null) != fcmToken).also { unEqual ->
-                        if (unEqual) {
-                            Timber.d("NH Registration refreshing with token : $fcmToken")
                         }
-                    }) {
-                resultString = updateConnection(fcmToken)
-            } else {
-                resultString = "Previously Registered Successfully - RegId : $regID"
-            }
-        } catch (e: java.lang.Exception) {
-            Timber.e(e, "Failed to complete registration".also {
-                resultString = it
-            })
-            // If an exception happens while fetching the new token or updating registration data
-            // on a third-party server, this ensures that we'll attempt the update at a later time.
+                || (sharedPreferences.getString(KEY_FCM_TOKEN, null) != fcmToken).also { unEqual ->
+                    if (unEqual) {
+                        Timber.d("NH Registration refreshing with token : $fcmToken")
+                    }
+                }) {
+            updateConnection(fcmToken)
+        } else {
+            "Previously Registered Successfully - RegId : $regID"
         }
 
         return regID.also { Timber.d(resultString) }
     }
+
+    private sealed class RegistrationResult {
+        class Registered(val registrationId: String) : RegistrationResult()
+
+        class Failed(val stage: RegistrationStage, val cause: Throwable?) : RegistrationResult()
+    }
+}
+
+enum class RegistrationStage {
+    CONNECTION_DATA, FCM_TOKEN, HUB
+}
+
+sealed class HubState {
+    object Unregistered : HubState()
+
+    object Registering : HubState()
+
+    class Registered(val registrationId: String) : HubState()
+
+    object Unregistering : HubState()
+
+    class Failed(val stage: RegistrationStage, val cause: Throwable?) : HubState()
 }
 
+private class RegistrationException(val stage: RegistrationStage, cause: Throwable) : Exception(cause)
+
 @SuppressLint("MissingFirebaseInstanceTokenRefresh")
 class NotificationService : FirebaseMessagingService() {
     override fun onMessageReceived(remoteMessage: RemoteMessage) {
         val notification = RemoteNotification.create(remoteMessage.data)
 
+        @Suppress("DEPRECATION")
         NotificationHubDefault.lastNotification.postValue(notification)
 
+        val encoded = RemoteNotificationCodec.encode(remoteMessage.data)
+        NotificationInbox.append(notification, encoded)
+
         val extras = HashMap<String, Any>()
-        extras[BundleConstants.BUNDLE_NOTIFICATION] = Gson().toJson(notification)
+        extras[RemoteNotificationCodec.BUNDLE_NOTIFICATION_DATA] = encoded
         extras[BundleConstants.BUNDLE_SESSIONID] = notification.sessionId ?: -1
 
         if (notification.type.restriction != NotificationRestriction.LoggedInSmartCourt && notification.message.isNotEmpty()) {
-            prepareNotificationForDisplaying(applicationContext, extras, notification)
+            NotificationDisplayScheduler.default.submit(applicationContext, extras, notification)
         }
 
         if (notification.type.restriction != NotificationRestriction.LoggedInSmartCourt || SharedPreferencesManager.isUserInLoginSession()) {
-            requestContentUpdate(applicationContext, notification)
-        }
-    }
-
-    /**
-     * Sends the broadcast to make sure opened activities will receive the notification and update their content
-     *
-     * @param context      App context
-     * @param notification Notification that was received and that requires update
-     */
-    private fun requestContentUpdate(context: Context, notification: RemoteNotification) {
-        if (notification.type == NotificationType.ClipReady) {
-            DeeplinkingUtils.createFastDeeplinkForClip(notification.sessionId!!, notification.fileName!!)
+            NotificationPipeline.submit(applicationContext, notification, encoded)
         }
-        val updateIntent = Intent(NotificationInterceptor.EVENT_REQUEST_UPDATE)
-        updateIntent.putExtra(BundleConstants.BUNDLE_NOTIFICATION, Gson().toJson(notification))
-        context.sendBroadcast(updateIntent)
     }
 
 
@@ -201,13 +316,17 @@ class NotificationService : FirebaseMessagingService() {
          * @param c            App context
          * @param extras       Extra params
          * @param notification new notification
+         * @param id           Id of the displayed notification
+         * @param message      Displayed message
          */
-        fun prepareNotificationForDisplaying(c: Context?, extras: Map<String, Any>, notification: RemoteNotification) {
+        @JvmOverloads
+        fun prepareNotificationForDisplaying(c: Context?, extras: Map<String, Any>, notification: RemoteNotification,
+                                             id: Int = notification.id, message: String = notification.message) {
             val futureIntentClass = when (notification.type.restriction) {
                 NotificationRestriction.LoggedInSmartCourt -> OverviewActivity::class.java
                 else -> MainActivity::class.java
             }
-            NotificationHelper.createSimpleNotification(c, notification.id, object : NotificationIntentApplier {
+            NotificationHelper.createSimpleNotification(c, id, object : NotificationIntentApplier {
                 override fun getIntentClass(): Class<*> {
                     return futureIntentClass
                 }
@@ -217,7 +336,7 @@ class NotificationService : FirebaseMessagingService() {
                 }
 
                 override fun getMessage(): String {
-                    return notification.message
+                    return message
                 }
             })
         }
@@ -0,0 +1,71 @@
+package com.project.main.utils.notification
+
+import com.project.main.utils.DeeplinkingUtils
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import timber.log.Timber
+
+/**
+ * Builds fast deeplinks for ready clips in background, so content updates aren't delayed by them.
+ * Clips that are queued or were built recently aren't built again
+ */
+object ClipDeeplinkQueue {
+    private const val CAPACITY = 64
+
+    private const val RECENT_SIZE = 128
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private val queue = Channel<ClipKey>(CAPACITY)
+
+    // Queued or building clips, completed once built or failed
+    private val pending = HashMap<ClipKey, CompletableDeferred<Unit>>()
+
+    // Recently built clips, the least recently used one is evicted
+    private val recent = object : LinkedHashMap<ClipKey, Boolean>(RECENT_SIZE, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<ClipKey, Boolean>?) = size > RECENT_SIZE
+    }
+
+    init {
+        scope.launch {
+            for (key in queue) {
+                try {
+                    DeeplinkingUtils.createFastDeeplinkForClip(key.sessionId, key.fileName)
+                    synchronized(this@ClipDeeplinkQueue) { recent[key] = true }
+                } catch (e: Exception) {
+                    Timber.e(e, "Failed to create deeplink for %s", key)
+                } finally {
+                    synchronized(this@ClipDeeplinkQueue) { pending.remove(key) }?.complete(Unit)
+                }
+            }
+        }
+    }
+
+    /**
+     * @return job completed once the deeplink is built, or null if it's skipped
+     */
+    fun enqueue(sessionId: Long, fileName: String): Job? {
+        val key = ClipKey(sessionId, fileName)
+
+        synchronized(this) {
+            if (recent.containsKey(key)) return CompletableDeferred(Unit)
+            pending[key]?.let { return it }
+
+            val built = CompletableDeferred<Unit>()
+            pending[key] = built
+            if (!queue.trySend(key).isSuccess) {
+                pending.remove(key)
+                Timber.w("Deeplinks queue is full, skipping %s", key)
+                return null
+            }
+            return built
+        }
+    }
+
+    private data class ClipKey(val sessionId: Long, val fileName: String)
+}
@@ -0,0 +1,93 @@
+package com.project.main.utils
+
+/**
+ * Set of primitive longs based on open addressing, so lookups don't box and don't walk lists
+ */
+class LongHashSet(expectedSize: Int = 16) {
+
+    private var keys = LongArray(capacityFor(expectedSize))
+    private var mask = keys.size - 1
+
+    // 0 is used to mark empty slots, so it's tracked separately
+    private var hasZero = false
+
+    var size = 0
+        private set
+
+    fun isEmpty() = size == 0
+
+    fun contains(value: Long): Boolean {
+        if (value == 0L) return hasZero
+
+        var index = indexOf(value)
+        while (true) {
+            val key = keys[index]
+            if (key == 0L) return false
+            if (key == value) return true
+            index = (index + 1) and mask
+        }
+    }
+
+    /**
+     * @return true if value wasn't in the set before
+     */
+    fun add(value: Long): Boolean {
+        if (value == 0L) {
+            if (hasZero) return false
+            hasZero = true
+            size++
+            return true
+        }
+
+        var index = indexOf(value)
+        while (true) {
+            val key = keys[index]
+            if (key == value) return false
+            if (key == 0L) break
+            index = (index + 1) and mask
+        }
+
+        keys[index] = value
+        if (++size * 2 > keys.size) grow()
+        return true
+    }
+
+    fun addAll(values: Iterable<Long>) {
+        values.forEach { add(it) }
+    }
+
+    fun clear() {
+        keys.fill(0L)
+        hasZero = false
+        size = 0
+    }
+
+    private fun indexOf(value: Long): Int {
+        // Mixing bits, so sequential ids are spread over the table
+        var hash = value * -0x61c8864680b583ebL
+        hash = hash xor (hash ushr 32)
+        return hash.toInt() and mask
+    }
+
+    private fun grow() {
+        val oldKeys = keys
+        keys = LongArray(oldKeys.size * 2)
+        mask = keys.size - 1
+
+        for (key in oldKeys) {
+            if (key == 0L) continue
+
+            var index = indexOf(key)
+            while (keys[index] != 0L) index = (index + 1) and mask
+            keys[index] = key
+        }
+    }
+
+    private companion object {
+        fun capacityFor(expectedSize: Int): Int {
+            var capacity = 8
+            while (capacity < expectedSize * 2) capacity = capacity shl 1
+            return capacity
+        }
+    }
+}
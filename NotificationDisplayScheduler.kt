@@ -0,0 +1,126 @@
+package com.project.main.utils.notification
+
+import android.content.Context
+import android.os.SystemClock
+import com.project.main.consts.BundleConstants
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.util.*
+
+/**
+ * Posts notifications to the shade at a limited rate (token bucket). Notifications waiting for a token are ranked
+ * by type, and when more of them are waiting than can be posted, the rest are grouped into one summary notification.
+ * Grouped notifications are passed in the summary extras under [NotificationPipeline.BUNDLE_NOTIFICATION_BATCH].
+ *
+ * Waiting notifications are kept in memory only, after [NotificationService] has returned. If the process is killed
+ * within [refillInterval] of a burst, they aren't posted. Their content updates still reach [NotificationInbox]
+ *
+ * @param capacity       Max notifications posted at once
+ * @param refillInterval Time to restore one token
+ * @param priorityOf     Lower value is posted first
+ * @param clock          Current time in millis, monotonic
+ */
+class NotificationDisplayScheduler(
+        private val capacity: Int = 3,
+        private val refillInterval: Long = 2_000L,
+        private val priorityOf: (NotificationType) -> Int = { PRIORITIES[it] ?: PRIORITY_NORMAL },
+        private val clock: () -> Long = SystemClock::elapsedRealtime,
+        private val scope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default),
+        private val display: (Scheduled) -> Unit = ::post,
+        private val displaySummary: (Scheduled, List<Scheduled>) -> Unit = ::postSummary
+) {
+    private var sequence = 0L
+
+    private val waiting = PriorityQueue<Scheduled>(compareBy<Scheduled> { priorityOf(it.notification.type) }.thenBy { it.sequence })
+
+    private var tokens = capacity.toDouble()
+
+    private var refilledAt = clock()
+
+    private var drainJob: Job? = null
+
+    @Synchronized
+    fun submit(context: Context, extras: Map<String, Any>, notification: RemoteNotification) {
+        waiting.add(Scheduled(context.applicationContext, extras, notification, sequence++))
+        drain()
+    }
+
+    /**
+     * Posts notifications allowed by available tokens. Called again when the next token is restored
+     */
+    @Synchronized
+    fun drain() {
+        refill()
+
+        while (tokens >= 1 && waiting.isNotEmpty()) {
+            tokens--
+            // Last token covers all the remaining ones
+            if (tokens < 1 && waiting.size > 1) {
+                val top = waiting.poll()!!
+                val grouped = ArrayList<Scheduled>(waiting.size)
+                while (waiting.isNotEmpty()) grouped.add(waiting.poll()!!)
+                displaySummary(top, grouped)
+            } else {
+                display(waiting.poll()!!)
+            }
+        }
+
+        if (waiting.isNotEmpty() && drainJob?.isActive != true) {
+            // Rounded up, so the token is restored on wake up
+            val wait = Math.ceil((1 - tokens) * refillInterval).toLong()
+            drainJob = scope.launch {
+                delay(wait)
+                synchronized(this@NotificationDisplayScheduler) {
+                    // Cleared first, so drain could schedule the next wake up
+                    drainJob = null
+                    drain()
+                }
+            }
+        }
+    }
+
+    private fun refill() {
+        val now = clock()
+        tokens = minOf(capacity.toDouble(), tokens + (now - refilledAt).toDouble() / refillInterval)
+        refilledAt = now
+    }
+
+    class Scheduled(val context: Context, val extras: Map<String, Any>, val notification: RemoteNotification, val sequence: Long)
+
+    companion object {
+        private const val SUMMARY_NOTIFICATION_ID = -1
+
+        private const val SUMMARY_MESSAGE = "%s (+%d)"
+
+        private const val PRIORITY_NORMAL = 0
+
+        private const val PRIORITY_LOW = 1
+
+        // Clips arrive in bursts at the end of the match, so other notifications are posted before them
+        private val PRIORITIES = mapOf(NotificationType.ClipReady to PRIORITY_LOW)
+
+        val default by lazy { NotificationDisplayScheduler() }
+
+        private fun post(scheduled: Scheduled) {
+            NotificationService.prepareNotificationForDisplaying(scheduled.context, withLegacyJson(scheduled), scheduled.notification)
+        }
+
+        private fun postSummary(top: Scheduled, grouped: List<Scheduled>) {
+            val extras = withLegacyJson(top)
+            extras[NotificationPipeline.BUNDLE_NOTIFICATION_BATCH] = grouped
+                    .mapNotNull { it.extras[RemoteNotificationCodec.BUNDLE_NOTIFICATION_DATA] as? String }
+                    .toTypedArray()
+
+            NotificationService.prepareNotificationForDisplaying(top.context, extras, top.notification,
+                    SUMMARY_NOTIFICATION_ID, SUMMARY_MESSAGE.format(top.notification.message, grouped.size))
+        }
+
+        private fun withLegacyJson(scheduled: Scheduled): HashMap<String, Any> = HashMap(scheduled.extras).apply {
+            put(BundleConstants.BUNDLE_NOTIFICATION, RemoteNotificationCodec.toLegacyJson(scheduled.notification))
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.project.main.utils.notification
+
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+
+/**
+ * In-process stream of notifications requiring content update. Subscribers receive notifications as is,
+ * without going through broadcasts and serialization
+ */
+object NotificationEvents {
+    private const val BUFFER_SIZE = 64
+
+    private val _notifications = MutableSharedFlow<RemoteNotification>(
+            extraBufferCapacity = BUFFER_SIZE,
+            onBufferOverflow = BufferOverflow.DROP_OLDEST)
+
+    val notifications: SharedFlow<RemoteNotification> = _notifications.asSharedFlow()
+
+    fun emit(notification: RemoteNotification) {
+        _notifications.tryEmit(notification)
+    }
+}
@@ -0,0 +1,176 @@
+package com.project.main.utils.notification
+
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import com.project.main.App
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import timber.log.Timber
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+
+/**
+ * Persistent log of received notifications, so screens that weren't observing can catch up with
+ * [changesSince] instead of reloading everything.
+ * Only the latest notification of each session is kept, the log is compacted when it grows twice the limit.
+ * The log starts with the latest dropped sequence, so evicted changes are known after restart too
+ */
+object NotificationInbox {
+    private const val FILE_NAME = "notification_inbox"
+
+    private const val MAX_ENTRIES = 200
+
+    private val file: File by lazy { File(App.getContext().filesDir, FILE_NAME) }
+
+    // Ordered by sequence, keyed by session (or by sequence for notifications without one)
+    private val entries = LinkedHashMap<Any, Entry>()
+
+    private var isLoaded = false
+
+    // Records written to the file, including the ones replaced since
+    private var logSize = 0
+
+    private var lastSequence = 0L
+
+    // Latest sequence evicted over the limit
+    private var droppedSequence = 0L
+
+    private val _sequence = MutableLiveData<Long>()
+
+    /**
+     * Sequence of the latest received notification. Set once the log is loaded, so screens get the baseline
+     * without waiting for the next notification
+     */
+    val sequence: LiveData<Long> = _sequence
+
+    init {
+        CoroutineScope(Dispatchers.IO).launch {
+            synchronized(this@NotificationInbox) { load() }
+        }
+    }
+
+    @Synchronized
+    fun append(notification: RemoteNotification, encoded: String): Long {
+        load()
+
+        val entry = Entry(++lastSequence, notification, encoded)
+        put(entry)
+
+        try {
+            if (!file.exists() || logSize >= MAX_ENTRIES * 2) {
+                compact()
+            } else {
+                DataOutputStream(FileOutputStream(file, true).buffered()).use { it.writeEntry(entry) }
+                logSize++
+            }
+        } catch (e: Exception) {
+            Timber.e(e, "Failed to store notification %d", entry.sequence)
+        }
+
+        _sequence.postValue(entry.sequence)
+        return entry.sequence
+    }
+
+    /**
+     * @return latest notifications of sessions changed after [sequence], ordered by sequence
+     */
+    @Synchronized
+    fun changesSince(sequence: Long): Changes {
+        load()
+
+        return Changes(entries.values.filter { it.sequence > sequence }, sequence >= droppedSequence)
+    }
+
+    /**
+     * Drops all notifications, e.g. once the user is signed out. Sequences keep growing,
+     * so screens that saw the dropped ones reload everything
+     */
+    @Synchronized
+    fun clear() {
+        load()
+
+        entries.clear()
+        droppedSequence = lastSequence
+        compact()
+
+        _sequence.postValue(lastSequence)
+    }
+
+    private fun put(entry: Entry) {
+        // Re-inserting to keep the order by sequence
+        entries.remove(entry.key)
+        entries[entry.key] = entry
+
+        if (entries.size > MAX_ENTRIES) {
+            entries.remove(entries.keys.first())?.let { droppedSequence = maxOf(droppedSequence, it.sequence) }
+        }
+    }
+
+    private fun load() {
+        if (isLoaded) return
+        isLoaded = true
+
+        if (!file.exists()) {
+            _sequence.postValue(lastSequence)
+            return
+        }
+
+        try {
+            DataInputStream(FileInputStream(file).buffered()).use { input ->
+                droppedSequence = input.readLong()
+                lastSequence = droppedSequence
+
+                while (input.available() > 0) {
+                    val sequence = input.readLong()
+                    val encoded = input.readUTF()
+
+                    put(Entry(sequence, RemoteNotificationCodec.decode(encoded), encoded))
+                    lastSequence = maxOf(lastSequence, sequence)
+                    logSize++
+                }
+            }
+        } catch (e: Exception) {
+            // Record being written when the process died, everything before it is still valid
+            Timber.e(e, "Failed to read notification inbox")
+            compact()
+        }
+
+        _sequence.postValue(lastSequence)
+    }
+
+    private fun compact() {
+        try {
+            // Writing to temp file first to never leave partially written log
+            val temp = File(file.parentFile, "$FILE_NAME.tmp")
+            DataOutputStream(FileOutputStream(temp).buffered()).use { output ->
+                output.writeLong(droppedSequence)
+                entries.values.forEach { output.writeEntry(it) }
+            }
+            if (temp.renameTo(file)) {
+                logSize = entries.size
+            } else {
+                temp.delete()
+            }
+        } catch (e: Exception) {
+            Timber.e(e, "Failed to compact notification inbox")
+        }
+    }
+
+    private fun DataOutputStream.writeEntry(entry: Entry) {
+        writeLong(entry.sequence)
+        writeUTF(entry.encoded)
+    }
+
+    /**
+     * @param isComplete False if some of the changes were dropped over the limit, so everything should be reloaded
+     */
+    class Changes(val entries: List<Entry>, val isComplete: Boolean)
+
+    class Entry(val sequence: Long, val notification: RemoteNotification, internal val encoded: String) {
+        internal val key: Any = notification.sessionId ?: "#$sequence"
+    }
+}
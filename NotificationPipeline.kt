@@ -0,0 +1,96 @@
+package com.project.main.utils.notification
+
+import android.content.Context
+import android.content.Intent
+import com.project.main.consts.BundleConstants
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import timber.log.Timber
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Content updates requested by incoming notifications. Bursts (e.g. lots of ClipReady at the end of the match)
+ * are coalesced, so opened activities receive a single broadcast per window
+ */
+object NotificationPipeline {
+    const val BUNDLE_NOTIFICATION_BATCH = "notificationBatch"
+
+    private const val COALESCING_WINDOW = 300L
+
+    // Max time the batch waits for deeplinks of its clips
+    private const val DEEPLINK_TIMEOUT = 2_000L
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    private val incoming = Channel<Entry>(Channel.UNLIMITED)
+
+    private val isStarted = AtomicBoolean()
+
+    /**
+     * @param encoded Push data encoded by [RemoteNotificationCodec], so it isn't encoded again for the broadcast
+     */
+    fun submit(context: Context, notification: RemoteNotification, encoded: String) {
+        if (isStarted.compareAndSet(false, true)) {
+            start(context.applicationContext)
+        }
+        val deeplink = if (notification.type == NotificationType.ClipReady) {
+            ClipDeeplinkQueue.enqueue(notification.sessionId!!, notification.fileName!!)
+        } else null
+        incoming.trySend(Entry(notification, encoded, deeplink))
+    }
+
+    private fun start(context: Context) {
+        scope.launch {
+            for (first in incoming) {
+                // Same session can be notified several times of the same type, only the latest one matters
+                val batch = LinkedHashMap<Any, Entry>()
+                batch[first.key] = first
+
+                delay(COALESCING_WINDOW)
+                while (true) {
+                    val next = incoming.tryReceive().getOrNull() ?: break
+                    batch.remove(next.key)
+                    batch[next.key] = next
+                }
+
+                // Receivers read the deeplink on update, so it's built first. Built during the window in most cases
+                withTimeoutOrNull(DEEPLINK_TIMEOUT) {
+                    batch.values.forEach { it.deeplink?.join() }
+                }
+
+                try {
+                    dispatch(context, batch.values)
+                } catch (e: Exception) {
+                    Timber.e(e, "Failed to dispatch %d notifications", batch.size)
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers notifications to [NotificationEvents] subscribers and sends the broadcast to make sure
+     * receivers that don't use them will receive the notifications and update their content.
+     * The latest notification is kept in single notification extras for receivers unaware of batches
+     */
+    private fun dispatch(context: Context, entries: Collection<Entry>) {
+        entries.forEach { NotificationEvents.emit(it.notification) }
+
+        val updateIntent = Intent(NotificationInterceptor.EVENT_REQUEST_UPDATE)
+        updateIntent.setPackage(context.packageName)
+        updateIntent.putExtras(RemoteNotificationCodec.toBundle(entries.last().encoded))
+        updateIntent.putExtra(BundleConstants.BUNDLE_NOTIFICATION, RemoteNotificationCodec.toLegacyJson(entries.last().notification))
+        updateIntent.putExtra(BUNDLE_NOTIFICATION_BATCH, entries.map { it.encoded }.toTypedArray())
+        context.sendBroadcast(updateIntent)
+    }
+
+    private class Entry(val notification: RemoteNotification, val encoded: String, val deeplink: Job?) {
+        // Notifications without session aren't related to each other, so each one gets its own key
+        val key: Any = notification.sessionId?.let { Pair(it, notification.type) } ?: Any()
+    }
+}
@@ -0,0 +1,37 @@
+package com.project.main.viewmodel
+
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+import com.project.main.utils.LongHashSet
+
+/**
+ * Archive items kept sorted by [ARCHIVE_ORDER] and unique by session id.
+ * New periods are merged into the existing items, so the whole archive is never sorted again.
+ * If the session is received twice, the first received item is kept
+ */
+class OrderedArchive {
+
+    // Replaced on every merge and never modified, so it's safe to publish
+    private var items = SortedArchive.EMPTY
+
+    private val sessionIds = LongHashSet()
+
+    /**
+     * Merges [periods] into archive
+     *
+     * @param periods items lists, each one sorted by [ARCHIVE_ORDER]
+     * @return immutable snapshot of the whole archive
+     */
+    fun merge(periods: List<List<ArchiveItem>>): List<ArchiveItem> {
+        val runs = ArrayList<SortedArchive>(periods.size + 1)
+        periods.forEach { period ->
+            val newItems = period.filter { sessionIds.add(it.sessionId) }
+            if (newItems.isNotEmpty()) runs.add(SortedArchive.of(newItems))
+        }
+
+        if (runs.isEmpty()) return items
+
+        if (items.isNotEmpty()) runs.add(items)
+        items = if (runs.size == 1) runs[0] else SortedArchive.merge(runs)
+        return items
+    }
+}
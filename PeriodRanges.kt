@@ -0,0 +1,73 @@
+package com.project.main.viewmodel
+
+import com.project.main.utils.DateUtils
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Calendar years bounds as epoch millis. Computed with [Calendar], so it works without java.time on older APIs
+ */
+object PeriodRanges {
+
+    // Bounds of closed years never change, so they're computed once
+    private val closedBounds = ConcurrentHashMap<ClosedBoundsKey, LongArray>()
+
+    /**
+     * Bounds of ranges from [startTime] back to [endTime], newest first: [startTime], start of the current year,
+     * start of the previous one, etc. Every two consecutive bounds form a range, the last range covers [endTime].
+     * All bounds except [startTime] are the same for every [startTime] within the same year
+     */
+    fun yearBounds(startTime: Long, endTime: Long, zone: TimeZone = TimeZone.getDefault()): LongArray {
+        val yearStart = Calendar.getInstance(zone).apply {
+            timeInMillis = startTime
+            set(Calendar.DAY_OF_YEAR, 1)
+            set(Calendar.HOUR_OF_DAY, 0)
+            set(Calendar.MINUTE, 0)
+            set(Calendar.SECOND, 0)
+            set(Calendar.MILLISECOND, 0)
+        }
+
+        val closed = closedBounds.getOrPut(ClosedBoundsKey(yearStart.timeInMillis, endTime, zone.id)) {
+            computeBounds(yearStart, endTime)
+        }
+
+        return LongArray(closed.size + 1).also { bounds ->
+            bounds[0] = startTime
+            System.arraycopy(closed, 0, bounds, 1, closed.size)
+        }
+    }
+
+    private fun computeBounds(yearStart: Calendar, endTime: Long): LongArray {
+        var bounds = LongArray(16)
+        var size = 0
+
+        while (true) {
+            val time = yearStart.timeInMillis
+            if (size == bounds.size) bounds = bounds.copyOf(size * 2)
+            bounds[size++] = time
+
+            if (time < endTime) break
+            yearStart.add(Calendar.YEAR, -1)
+        }
+
+        return bounds.copyOf(size)
+    }
+
+    private data class ClosedBoundsKey(val yearStart: Long, val endTime: Long, val zoneId: String)
+}
+
+/**
+ * Formats request dates with [DateUtils.DATE_TIME_FORMAT]. Aligned bounds are requested on every load,
+ * so formatted values are cached
+ */
+object RequestDates {
+    private const val MAX_SIZE = 256
+
+    private val cache = object : LinkedHashMap<Long, String>(MAX_SIZE, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, String>?) = size > MAX_SIZE
+    }
+
+    fun format(time: Long): String = synchronized(cache) {
+        cache.getOrPut(time) { DateUtils.formatDate(DateUtils.DATE_TIME_FORMAT, time) }
+    }
+}
@@ -0,0 +1,100 @@
+package com.project.main.utils.notification
+
+import android.os.Bundle
+import com.google.gson.Gson
+import com.project.main.consts.BundleConstants
+import timber.log.Timber
+
+/**
+ * Passes notifications as their original push data instead of reflective JSON.
+ * Data is encoded as `key=value` pairs joined by `&`, separators inside keys and values are escaped with `\`
+ */
+object RemoteNotificationCodec {
+    const val BUNDLE_NOTIFICATION_DATA = "notificationData"
+
+    private const val ESCAPE = '\\'
+    private const val KEY_SEPARATOR = '='
+    private const val PAIR_SEPARATOR = '&'
+
+    // Legacy JSON is still written until all receivers read the encoded data, and read from extras written before the codec
+    private val legacyGson by lazy { Gson() }
+
+    fun encode(data: Map<String, String>): String = buildString {
+        data.entries.forEachIndexed { index, (key, value) ->
+            if (index > 0) append(PAIR_SEPARATOR)
+            appendEscaped(key)
+            append(KEY_SEPARATOR)
+            appendEscaped(value)
+        }
+    }
+
+    fun decodeData(encoded: String): Map<String, String> {
+        val data = HashMap<String, String>()
+        val token = StringBuilder()
+        var key: String? = null
+        var isEscaped = false
+
+        for (c in encoded) {
+            when {
+                isEscaped -> {
+                    token.append(c)
+                    isEscaped = false
+                }
+                c == ESCAPE -> isEscaped = true
+                c == KEY_SEPARATOR && key == null -> {
+                    key = token.toString()
+                    token.setLength(0)
+                }
+                c == PAIR_SEPARATOR -> {
+                    key?.let { data[it] = token.toString() }
+                    key = null
+                    token.setLength(0)
+                }
+                else -> token.append(c)
+            }
+        }
+        key?.let { data[it] = token.toString() }
+
+        return data
+    }
+
+    fun decode(encoded: String): RemoteNotification = RemoteNotification.create(decodeData(encoded))
+
+    /**
+     * @param encoded Push data encoded by [encode]
+     */
+    fun toBundle(encoded: String): Bundle = Bundle(1).apply {
+        putString(BUNDLE_NOTIFICATION_DATA, encoded)
+    }
+
+    /**
+     * JSON for [BundleConstants.BUNDLE_NOTIFICATION] read by receivers that weren't migrated to [readFrom].
+     * It's reflective, so it's made only for intents that are actually sent, not for every received message
+     */
+    fun toLegacyJson(notification: RemoteNotification): String = legacyGson.toJson(notification)
+
+    /**
+     * @return notification from [BUNDLE_NOTIFICATION_DATA], or from legacy JSON in [BundleConstants.BUNDLE_NOTIFICATION]
+     */
+    fun readFrom(bundle: Bundle?): RemoteNotification? {
+        bundle ?: return null
+
+        bundle.getString(BUNDLE_NOTIFICATION_DATA)?.let { return decode(it) }
+
+        return bundle.getString(BundleConstants.BUNDLE_NOTIFICATION)?.let { json ->
+            try {
+                legacyGson.fromJson(json, RemoteNotification::class.java)
+            } catch (e: Exception) {
+                Timber.e(e, "Failed to read legacy notification")
+                null
+            }
+        }
+    }
+
+    private fun StringBuilder.appendEscaped(value: String) {
+        for (c in value) {
+            if (c == ESCAPE || c == KEY_SEPARATOR || c == PAIR_SEPARATOR) append(ESCAPE)
+            append(c)
+        }
+    }
+}
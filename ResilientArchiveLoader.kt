@@ -0,0 +1,70 @@
+package com.project.main.viewmodel
+
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+import kotlinx.coroutines.delay
+import kotlin.math.min
+import kotlin.random.Random
+
+/**
+ * Retries failed archive requests with jittered exponential backoff.
+ * Ranges that still couldn't be loaded are recorded, so only they are refetched later instead of the whole archive.
+ *
+ * All ranges are [start, end) in millis
+ */
+class ResilientArchiveLoader(
+        private val fetch: suspend (start: Long, end: Long) -> List<ArchiveItem>?,
+        private val maxAttempts: Int = 3,
+        private val baseDelay: Long = 500L,
+        private val random: Random = Random.Default) {
+
+    private val failedRanges = mutableSetOf<FailedRange>()
+
+    val hasFailures: Boolean
+        get() = synchronized(failedRanges) { failedRanges.isNotEmpty() }
+
+    suspend fun load(start: Long, end: Long): List<ArchiveItem>? {
+        for (attempt in 0 until maxAttempts) {
+            if (attempt > 0) delay(backoff(attempt))
+
+            val items = fetch(start, end)
+            if (items != null) {
+                synchronized(failedRanges) { failedRanges.remove(FailedRange(start, end)) }
+                return items
+            }
+        }
+
+        markFailed(start, end)
+        return null
+    }
+
+    /**
+     * Records range that wasn't loaded for other reasons, e.g. timeout
+     */
+    fun markFailed(start: Long, end: Long) {
+        synchronized(failedRanges) { failedRanges.add(FailedRange(start, end)) }
+    }
+
+    /**
+     * Loads failed ranges again
+     *
+     * @return items of every recovered range. Ranges that failed again stay recorded
+     */
+    suspend fun recover(): List<List<ArchiveItem>> {
+        val ranges = synchronized(failedRanges) { failedRanges.toList() }
+
+        return ranges.mapNotNull { load(it.start, it.end) }
+    }
+
+    private fun backoff(attempt: Int): Long {
+        val delay = baseDelay * (1L shl min(attempt - 1, MAX_SHIFT))
+
+        // Spreading retries of the parallel requests, so they don't hit server at the same moment
+        return delay / 2 + random.nextLong(delay)
+    }
+
+    private data class FailedRange(val start: Long, val end: Long)
+
+    private companion object {
+        const val MAX_SHIFT = 6
+    }
+}
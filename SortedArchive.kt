@@ -0,0 +1,81 @@
+package com.project.main.viewmodel
+
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+import com.project.main.utils.LongHashSet
+import java.util.*
+
+/**
+ * Immutable archive sorted by [ARCHIVE_ORDER]. Never modified, so it's published without defensive copies,
+ * and filtering results are views instead of copies
+ */
+class SortedArchive private constructor(private val rows: Array<ArchiveItem?>) : AbstractList<ArchiveItem>(), RandomAccess {
+
+    override val size: Int
+        get() = rows.size
+
+    override fun get(index: Int): ArchiveItem = rows[index]!!
+
+    /**
+     * @return view of the items with session ids from [sessionsToShow]
+     */
+    fun filterSessions(sessionsToShow: LongHashSet): List<ArchiveItem> {
+        var indexes = IntArray(minOf(size, sessionsToShow.size))
+        var count = 0
+
+        for (index in rows.indices) {
+            if (!sessionsToShow.contains(rows[index]!!.sessionId)) continue
+
+            if (count == indexes.size) indexes = indexes.copyOf(maxOf(count * 2, 1))
+            indexes[count++] = index
+        }
+
+        return View(this, indexes, count)
+    }
+
+    private class View(private val archive: SortedArchive, private val indexes: IntArray, override val size: Int)
+        : AbstractList<ArchiveItem>(), RandomAccess {
+
+        override fun get(index: Int): ArchiveItem {
+            if (index >= size) throw IndexOutOfBoundsException("Index $index, size $size")
+            return archive[indexes[index]]
+        }
+    }
+
+    companion object {
+        @JvmField
+        val EMPTY = SortedArchive(arrayOf())
+
+        /**
+         * @param items sorted by [ARCHIVE_ORDER]
+         */
+        fun of(items: List<ArchiveItem>): SortedArchive {
+            if (items is SortedArchive) return items
+
+            return SortedArchive(Array<ArchiveItem?>(items.size) { items[it] })
+        }
+
+        /**
+         * K-way merge of [runs] into a single archive sorted by [ARCHIVE_ORDER]
+         */
+        fun merge(runs: List<SortedArchive>): SortedArchive {
+            val rows = arrayOfNulls<ArchiveItem>(runs.sumBy { it.size })
+
+            // Heads of runs. Run is taken out of the queue before its position is moved
+            val positions = IntArray(runs.size)
+            val heads = PriorityQueue<Int>(maxOf(runs.size, 1)) { a, b ->
+                ARCHIVE_ORDER.compare(runs[a][positions[a]], runs[b][positions[b]])
+            }
+            runs.forEachIndexed { index, run -> if (run.size > 0) heads.add(index) }
+
+            var target = 0
+            while (heads.isNotEmpty()) {
+                val runIndex = heads.poll()!!
+                rows[target++] = runs[runIndex].rows[positions[runIndex]]
+
+                if (++positions[runIndex] < runs[runIndex].size) heads.add(runIndex)
+            }
+
+            return SortedArchive(rows)
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.project.main.viewmodel
+
+import com.project.main.models.session.info.ActivitiesArchiveInfo.ArchiveItem
+import com.project.main.utils.LongHashSet
+import java.util.*
+
+/**
+ * Keeps up to [capacity] newest items by [ARCHIVE_ORDER]. Items are fed one by one,
+ * so already collected items are never processed again
+ */
+class TopArchiveCollector(private val capacity: Int) {
+
+    // The oldest kept item is on top, so it's the one replaced by the newer ones
+    private val heap = PriorityQueue<ArchiveItem>(capacity) { o1, o2 -> ARCHIVE_ORDER.compare(o2, o1) }
+
+    // Sessions that were already processed, no matter if they were kept or not
+    private val seen = LongHashSet()
+
+    val size: Int
+        get() = heap.size
+
+    fun isSeen(sessionId: Long) = seen.contains(sessionId)
+
+    fun markSeen(items: List<ArchiveItem>) {
+        items.forEach { seen.add(it.sessionId) }
+    }
+
+    /**
+     * @return true if kept items were changed
+     */
+    fun offer(item: ArchiveItem): Boolean {
+        seen.add(item.sessionId)
+
+        if (heap.size < capacity) {
+            heap.add(item)
+            return true
+        }
+
+        if (ARCHIVE_ORDER.compare(item, heap.peek()) < 0) {
+            heap.poll()
+            heap.add(item)
+            return true
+        }
+
+        return false
+    }
+
+    /**
+     * @return kept items sorted by [ARCHIVE_ORDER]
+     */
+    fun snapshot(): List<ArchiveItem> = heap.sortedWith(ARCHIVE_ORDER)
+
+    fun clear() {
+        heap.clear()
+        seen.clear()
+    }
+}